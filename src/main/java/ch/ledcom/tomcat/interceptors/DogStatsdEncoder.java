@@ -0,0 +1,53 @@
+/**
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+package ch.ledcom.tomcat.interceptors;
+
+import java.util.Locale;
+
+/**
+ * DogStatsD wire format:
+ * <code>name:value|type|@sampleRate|#key:value,key:value</code>.
+ *
+ * @author gehel
+ */
+public class DogStatsdEncoder implements MetricEncoder {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final MetricKey encode(final String name, final Tags tags,
+            final String type, final double sampleRate) {
+        StringBuilder tail = new StringBuilder(String.format(Locale.ENGLISH,
+                "|%s|@%f", type, sampleRate));
+        for (int i = 0; i < tags.size(); i++) {
+            tail.append(i == 0 ? "|#" : ",");
+            tail.append(sanitize(tags.key(i))).append(':')
+                    .append(sanitize(tags.value(i)));
+        }
+        return new MetricKey(name + ":", tail.toString());
+    }
+
+    /**
+     * Replace characters having a meaning in the DogStatsD format.
+     *
+     * @param s
+     *            tag key or value
+     * @return the sanitized tag key or value
+     */
+    private static String sanitize(final String s) {
+        return s.replaceAll("[,|#:\\s]", "_");
+    }
+
+}
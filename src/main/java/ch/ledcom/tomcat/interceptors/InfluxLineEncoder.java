@@ -0,0 +1,52 @@
+/**
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+package ch.ledcom.tomcat.interceptors;
+
+/**
+ * InfluxDB line protocol: <code>name,key=value,key=value value=123i</code>.
+ *
+ * The line protocol has no notion of sample rate, so it is dropped. No
+ * timestamp is sent, the time of reception is used by the server.
+ *
+ * @author gehel
+ */
+public class InfluxLineEncoder implements MetricEncoder {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final MetricKey encode(final String name, final Tags tags,
+            final String type, final double sampleRate) {
+        StringBuilder head = new StringBuilder(escape(name));
+        for (int i = 0; i < tags.size(); i++) {
+            head.append(',').append(escape(tags.key(i))).append('=')
+                    .append(escape(tags.value(i)));
+        }
+        head.append(" value=");
+        return new MetricKey(head.toString(), "i");
+    }
+
+    /**
+     * Escape characters having a meaning in the line protocol.
+     *
+     * @param s
+     *            measurement name, tag key or tag value
+     * @return the escaped string
+     */
+    private static String escape(final String s) {
+        return s.replaceAll("([, =])", "\\\\$1");
+    }
+
+}
@@ -0,0 +1,85 @@
+/**
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+package ch.ledcom.tomcat.interceptors;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Timing metrics of a set of methods, pre-encoded for each method and
+ * outcome so that reporting does not build any {@link String}.
+ *
+ * @author gehel
+ */
+public class MethodMetrics {
+    /** Value of the <code>outcome</code> tag for successful calls. */
+    static final String OUTCOME_OK = "ok";
+    /** Value of the <code>outcome</code> tag for failed calls. */
+    static final String OUTCOME_ERROR = "error";
+
+    /** {@link Metrics} used for reporting. */
+    private final Metrics metrics;
+    /** Encoded metrics by method name, indexed by outcome (ok, error). */
+    private final Map<String, MetricKey[]> keys =
+            new HashMap<String, MetricKey[]>();
+
+    /**
+     * Encode the metrics of a set of methods.
+     *
+     * Metrics are reported under the key
+     * <code>.scope.methodName.timing</code>, tagged with the given tags, the
+     * method name and the outcome of the call.
+     *
+     * @param metrics
+     *            {@link Metrics} used for reporting
+     * @param scope
+     *            part of the key identifying the object called
+     * @param methods
+     *            names of the methods to report
+     * @param tags
+     *            tags common to all methods
+     */
+    public MethodMetrics(final Metrics metrics, final String scope,
+            final Collection<String> methods, final Tags tags) {
+        this.metrics = metrics;
+        for (String method : methods) {
+            String key = "." + scope + "." + method + ".timing";
+            Tags methodTags = tags.with("method", method);
+            keys.put(method, new MetricKey[] {
+                    metrics.timer(key, methodTags.with("outcome", OUTCOME_OK)),
+                    metrics.timer(key,
+                            methodTags.with("outcome", OUTCOME_ERROR))});
+        }
+    }
+
+    /**
+     * Report the timing of a method call. Unknown methods are ignored.
+     *
+     * @param method
+     *            name of the method
+     * @param failed
+     *            <code>true</code> if the call threw an exception
+     * @param value
+     *            time to report (in nanoseconds)
+     */
+    public final void timing(final String method, final boolean failed,
+            final long value) {
+        MetricKey[] methodKeys = keys.get(method);
+        if (methodKeys != null) {
+            metrics.timing(methodKeys[failed ? 1 : 0], value);
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+/**
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+package ch.ledcom.tomcat.interceptors;
+
+/**
+ * Wire format used to report metrics.
+ *
+ * Encoding happens once per metric name and tag set, the resulting
+ * {@link MetricKey} is reused for every value reported.
+ *
+ * @author gehel
+ */
+public interface MetricEncoder {
+
+    /**
+     * Pre-encode a metric.
+     *
+     * @param name
+     *            full name of the metric, including prefix
+     * @param tags
+     *            tags attached to the metric
+     * @param type
+     *            Statsd type of the metric (for example <code>ms</code>)
+     * @param sampleRate
+     *            ratio of metrics being actually reported
+     * @return the encoded metric
+     */
+    MetricKey encode(String name, Tags tags, String type, double sampleRate);
+
+}
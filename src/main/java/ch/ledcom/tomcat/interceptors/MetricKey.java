@@ -0,0 +1,71 @@
+/**
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+package ch.ledcom.tomcat.interceptors;
+
+import java.nio.charset.Charset;
+
+/**
+ * A metric name and its tags, pre-encoded by a {@link MetricEncoder}.
+ *
+ * An encoded metric is the bytes preceding the value followed by the bytes
+ * following it, so that reporting a value only copies bytes.
+ *
+ * @author gehel
+ */
+public final class MetricKey {
+
+    /** Encoding used on the wire. */
+    private static final Charset UTF_8 = Charset.forName("utf-8");
+
+    /** Bytes preceding the value. */
+    private final byte[] head;
+    /** Bytes following the value. */
+    private final byte[] tail;
+
+    /**
+     * Creates a pre-encoded metric.
+     *
+     * @param head
+     *            text preceding the value
+     * @param tail
+     *            text following the value
+     */
+    public MetricKey(final String head, final String tail) {
+        this.head = head.getBytes(UTF_8);
+        this.tail = tail.getBytes(UTF_8);
+    }
+
+    /**
+     * @return bytes preceding the value, must not be modified
+     */
+    byte[] getHead() {
+        return head;
+    }
+
+    /**
+     * @return bytes following the value, must not be modified
+     */
+    byte[] getTail() {
+        return tail;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return new String(head, UTF_8) + "<value>" + new String(tail, UTF_8);
+    }
+
+}
@@ -17,8 +17,9 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
-import java.util.Locale;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -35,9 +36,22 @@ public class Metrics {
 
     /** Size of send buffer. */
     private static final int BUFFER_SIZE = 1500;
+    /** Maximum number of characters of a long written in decimal. */
+    private static final int MAX_LONG_DIGITS = 20;
+    /** Type of timing metrics. */
+    private static final String TIMING_TYPE = "ms";
+
+    /**
+     * Metrics already encoded. Shared between instances, as interceptors (and
+     * thus {@link Metrics}) are created for each pooled connection.
+     */
+    private static final ConcurrentMap<KeyId, MetricKey> KEYS =
+            new ConcurrentHashMap<KeyId, MetricKey>();
 
     /** Buffer used for communication with Statsd. */
     private final ByteBuffer sendBuffer;
+    /** Scratch space used to write values in decimal. */
+    private final byte[] digits = new byte[MAX_LONG_DIGITS];
 
     /** Address of the Statsd server. */
     private final InetSocketAddress address;
@@ -47,9 +61,12 @@ public class Metrics {
     private final String prefix;
     /** Ratio of metrics being actually reported. */
     private final double sampleRate;
+    /** Wire format of the metrics. */
+    private final MetricEncoder encoder;
 
     /**
-     * Construct a reporter for a specific Statsd server.
+     * Construct a reporter for a specific Statsd server, using the plain
+     * Statsd format.
      *
      * @param hostname
      *            hostname of the Statsd server
@@ -62,6 +79,25 @@ public class Metrics {
      */
     public Metrics(final String hostname, final int port, final String prefix,
             final double sampleRate) {
+        this(hostname, port, prefix, sampleRate, new StatsdEncoder());
+    }
+
+    /**
+     * Construct a reporter for a specific server and wire format.
+     *
+     * @param hostname
+     *            hostname of the server
+     * @param port
+     *            port of the server
+     * @param prefix
+     *            prepended to the key being reported
+     * @param sampleRate
+     *            ratio of metrics being actually reported
+     * @param encoder
+     *            wire format of the metrics
+     */
+    public Metrics(final String hostname, final int port, final String prefix,
+            final double sampleRate, final MetricEncoder encoder) {
         address = new InetSocketAddress(hostname, port);
         try {
             channel = DatagramChannel.open();
@@ -71,6 +107,34 @@ public class Metrics {
         this.prefix = prefix;
         sendBuffer = ByteBuffer.allocate(BUFFER_SIZE);
         this.sampleRate = sampleRate;
+        this.encoder = encoder;
+    }
+
+    /**
+     * Get the pre-encoded timing metric for a key and a tag set.
+     *
+     * Encoding is only done the first time a combination is requested, so
+     * callers reporting often should keep the result.
+     *
+     * @param key
+     *            key under which to report the metric
+     * @param tags
+     *            tags attached to the metric
+     * @return the encoded metric
+     */
+    public final MetricKey timer(final String key, final Tags tags) {
+        KeyId id = new KeyId(encoder.getClass(), sampleRate, prefix + key,
+                tags);
+        MetricKey metricKey = KEYS.get(id);
+        if (metricKey == null) {
+            metricKey = encoder.encode(prefix + key, tags, TIMING_TYPE,
+                    sampleRate);
+            MetricKey existing = KEYS.putIfAbsent(id, metricKey);
+            if (existing != null) {
+                metricKey = existing;
+            }
+        }
+        return metricKey;
     }
 
     /**
@@ -83,43 +147,73 @@ public class Metrics {
      *            milliseconds)
      */
     public final void timing(final String key, final long value) {
-        doSend(String.format(Locale.ENGLISH, "%s:%d|ms|@%f", prefix + key,
-                value, sampleRate));
+        timing(timer(key, Tags.EMPTY), value);
+    }
+
+    /**
+     * Report a pre-encoded timing metric to Statsd server.
+     *
+     * @param key
+     *            metric obtained from {@link #timer(String, Tags)}
+     * @param value
+     *            time to report (in nanoseconds, even if Statsd expects
+     *            milliseconds)
+     */
+    public final void timing(final MetricKey key, final long value) {
+        doSend(key, value);
     }
 
     /**
      * Internal sending of metrics.
      *
-     * @param stat
-     *            actual {@link String} to send
+     * @param key
+     *            pre-encoded metric
+     * @param value
+     *            value to send
      */
-    private synchronized void doSend(final String stat) {
+    private synchronized void doSend(final MetricKey key, final long value) {
         // TODO: This code is take directly from the Statsd example. In this
         // case, it could be greatly simplified and synchronization should be
         // reduced.
-        try {
-            final byte[] data = stat.getBytes("utf-8");
+        final byte[] head = key.getHead();
+        final byte[] tail = key.getTail();
 
-            // If we're going to go past the threshold of the buffer then flush.
-            // the +1 is for the potential '\n' in multi_metrics below
-            if (sendBuffer.remaining() < (data.length + 1)) {
-                flush();
-            }
+        // If we're going to go past the threshold of the buffer then flush.
+        // the +1 is for the potential '\n' in multi_metrics below
+        if (sendBuffer.remaining() < (head.length + MAX_LONG_DIGITS
+                + tail.length + 1)) {
+            flush();
+        }
 
-            if (sendBuffer.position() > 0) { // multiple metrics are separated
-                                             // by '\n'
-                sendBuffer.put((byte) '\n');
-            }
+        if (sendBuffer.position() > 0) { // multiple metrics are separated
+                                         // by '\n'
+            sendBuffer.put((byte) '\n');
+        }
 
-            sendBuffer.put(data); // append the data
+        sendBuffer.put(head); // append the data
+        putDecimal(value);
+        sendBuffer.put(tail);
 
-            flush();
-        } catch (IOException e) {
-            LOG.log(Level.WARNING, String.format(
-                    "Could not send stat %s to host %s:%d",
-                    sendBuffer.toString(), address.getHostName(),
-                    address.getPort()), e);
+        flush();
+    }
+
+    /**
+     * Write a value in decimal to the send buffer, without allocating.
+     *
+     * @param value
+     *            value to write
+     */
+    private void putDecimal(final long value) {
+        long v = value;
+        int pos = digits.length;
+        do {
+            digits[--pos] = (byte) ('0' + Math.abs(v % 10));
+            v /= 10;
+        } while (v != 0);
+        if (value < 0) {
+            digits[--pos] = '-';
         }
+        sendBuffer.put(digits, pos, digits.length - pos);
     }
 
     /**
@@ -177,4 +271,62 @@ public class Metrics {
         return RNG.nextDouble() <= sampleRate;
     }
 
+    /**
+     * Identifies a metric in {@link #KEYS}.
+     */
+    private static final class KeyId {
+        /** Class of the encoder of the metric. */
+        private final Class<?> encoderClass;
+        /** Sample rate of the metric. */
+        private final double sampleRate;
+        /** Full name of the metric. */
+        private final String name;
+        /** Tags of the metric. */
+        private final Tags tags;
+
+        /**
+         * @param encoderClass
+         *            class of the encoder of the metric
+         * @param sampleRate
+         *            sample rate of the metric
+         * @param name
+         *            full name of the metric
+         * @param tags
+         *            tags of the metric
+         */
+        private KeyId(final Class<?> encoderClass, final double sampleRate,
+                final String name, final Tags tags) {
+            this.encoderClass = encoderClass;
+            this.sampleRate = sampleRate;
+            this.name = name;
+            this.tags = tags;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof KeyId)) {
+                return false;
+            }
+            KeyId other = (KeyId) obj;
+            return encoderClass.equals(other.encoderClass)
+                    && Double.compare(sampleRate, other.sampleRate) == 0
+                    && name.equals(other.name) && tags.equals(other.tags);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            long bits = Double.doubleToLongBits(sampleRate);
+            int result = encoderClass.hashCode();
+            result = 31 * result + (int) (bits ^ (bits >>> 32));
+            result = 31 * result + name.hashCode();
+            return 31 * result + tags.hashCode();
+        }
+    }
+
 }
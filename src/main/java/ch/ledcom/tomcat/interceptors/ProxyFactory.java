@@ -27,16 +27,23 @@ import java.sql.Statement;
 public class ProxyFactory {
 
     /** Used to report Metrics. */
-    private final Metrics metrics;
+    private final MethodMetrics metrics;
+    /** Span of the current transaction, <code>null</code> if not traced. */
+    private final TransactionSpan span;
 
     /**
      * Creates a proxy factory ready to report metrics to a Statsd server.
      *
      * @param metrics
      *            used to report Metrics
+     * @param span
+     *            span of the current transaction, <code>null</code> if
+     *            tracing is disabled
      */
-    public ProxyFactory(final Metrics metrics) {
+    public ProxyFactory(final MethodMetrics metrics,
+            final TransactionSpan span) {
         this.metrics = metrics;
+        this.span = span;
     }
 
     /**
@@ -44,11 +51,12 @@ public class ProxyFactory {
      * called.
      *
      * @param statement the {@link Statement} to proxy
+     * @param sampled <code>true</code> if metrics should be reported
      * @return a proxied {@link Statement}
      */
-    public final Statement statementProxy(final Statement statement) {
-        return createProxy(Statement.class, new StatementInvocationHandler(
-                statement, metrics));
+    public final Statement statementProxy(final Statement statement,
+            final boolean sampled) {
+        return createProxy(Statement.class, handler(statement, sampled));
     }
 
     /**
@@ -57,12 +65,14 @@ public class ProxyFactory {
      *
      * @param preparedStatement
      *            the {@link PreparedStatement} to proxy
+     * @param sampled
+     *            <code>true</code> if metrics should be reported
      * @return a proxied {@link PreparedStatement}
      */
     public final PreparedStatement preparedStatementProxy(
-            final PreparedStatement preparedStatement) {
+            final PreparedStatement preparedStatement, final boolean sampled) {
         return createProxy(PreparedStatement.class,
-                new StatementInvocationHandler(preparedStatement, metrics));
+                handler(preparedStatement, sampled));
     }
 
     /**
@@ -71,12 +81,35 @@ public class ProxyFactory {
      *
      * @param callableStatement
      *            the {@link CallableStatement} to proxy
+     * @param sampled
+     *            <code>true</code> if metrics should be reported
      * @return a proxied {@link CallableStatement}
      */
     public final CallableStatement callableStatementProxy(
-            final CallableStatement callableStatement) {
+            final CallableStatement callableStatement, final boolean sampled) {
         return createProxy(CallableStatement.class,
-                new StatementInvocationHandler(callableStatement, metrics));
+                handler(callableStatement, sampled));
+    }
+
+    /**
+     * Creates the handler reporting metrics and trace data for a statement.
+     *
+     * @param statement the {@link Statement} to proxy
+     * @param sampled <code>true</code> if metrics should be reported
+     * @return the proxy implementation
+     */
+    private InvocationHandler handler(final Statement statement,
+            final boolean sampled) {
+        MethodMetrics statementMetrics = null;
+        if (sampled) {
+            statementMetrics = metrics;
+        }
+        long spanGeneration = 0;
+        if (span != null) {
+            spanGeneration = span.getGeneration();
+        }
+        return new StatementInvocationHandler(statement, statementMetrics,
+                span, spanGeneration);
     }
 
     /**
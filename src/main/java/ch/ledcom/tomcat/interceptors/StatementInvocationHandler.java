@@ -32,14 +32,21 @@ public class StatementInvocationHandler implements InvocationHandler {
      * This {@link InvocationHandler} only reports metrics on this {@link Set}
      * of method names.
      */
-    private static final Set<String> METHODS_TO_REPORT = new HashSet<String>(
+    static final Set<String> METHODS_TO_REPORT = new HashSet<String>(
             Arrays.asList("execute", "executeBatch", "executeQuery",
                     "executeUpdate"));
 
     /** {@link Statement} being proxied. */
     private final Statement statement;
-    /** {@link Metrics} used for reporting. */
-    private final Metrics metrics;
+    /** Metrics used for reporting, <code>null</code> if not sampled. */
+    private final MethodMetrics metrics;
+    /** Span of the current transaction, <code>null</code> if not traced. */
+    private final TransactionSpan span;
+    /**
+     * Generation of {@link #span} when the statement was created, children
+     * are ignored once the connection has been returned to the pool.
+     */
+    private final long spanGeneration;
 
     /**
      * Creates the {@link InvocationHandler}.
@@ -47,12 +54,22 @@ public class StatementInvocationHandler implements InvocationHandler {
      * @param statement
      *            {@link Statement} being proxied
      * @param metrics
-     *            {@link Metrics} used for reporting
+     *            metrics used for reporting, <code>null</code> if this
+     *            statement is not sampled
+     * @param span
+     *            span of the current transaction, <code>null</code> if
+     *            tracing is disabled
+     * @param spanGeneration
+     *            value of {@link TransactionSpan#getGeneration()} when the
+     *            statement was created
      */
     public StatementInvocationHandler(final Statement statement,
-            final Metrics metrics) {
+            final MethodMetrics metrics, final TransactionSpan span,
+            final long spanGeneration) {
         this.statement = statement;
         this.metrics = metrics;
+        this.span = span;
+        this.spanGeneration = spanGeneration;
     }
 
     /**
@@ -62,18 +79,28 @@ public class StatementInvocationHandler implements InvocationHandler {
     public final Object invoke(final Object proxy, final Method method,
             final Object[] args) throws Throwable {
         String methodName = method.getName();
+        boolean shouldReport = shouldReport(methodName);
         long start = 0;
-        if (shouldReport(methodName)) {
+        if (shouldReport) {
             start = System.nanoTime();
         }
+        boolean failed = true;
         try {
-            return method.invoke(statement, args);
+            Object o = method.invoke(statement, args);
+            failed = false;
+            return o;
         } catch (InvocationTargetException e) {
             throw e.getCause();
         } finally {
-            if (shouldReport(methodName)) {
-                metrics.timing(".statement." + methodName + ".timing",
-                        System.nanoTime() - start);
+            if (shouldReport) {
+                long elapsed = System.nanoTime() - start;
+                if (metrics != null) {
+                    metrics.timing(methodName, failed, elapsed);
+                }
+                if (span != null) {
+                    span.addChild(spanGeneration, methodName, start, elapsed,
+                            failed);
+                }
             }
         }
     }
@@ -0,0 +1,37 @@
+/**
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+package ch.ledcom.tomcat.interceptors;
+
+import java.util.Locale;
+
+/**
+ * Plain Statsd wire format: <code>name:value|type|@sampleRate</code>.
+ *
+ * Plain Statsd has no notion of tags, so they are dropped.
+ *
+ * @author gehel
+ */
+public class StatsdEncoder implements MetricEncoder {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final MetricKey encode(final String name, final Tags tags,
+            final String type, final double sampleRate) {
+        return new MetricKey(name + ":", String.format(Locale.ENGLISH,
+                "|%s|@%f", type, sampleRate));
+    }
+
+}
@@ -0,0 +1,138 @@
+/**
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+package ch.ledcom.tomcat.interceptors;
+
+import java.util.Arrays;
+
+/**
+ * Immutable, ordered set of tags attached to a metric.
+ *
+ * Tags are only used when building a {@link MetricKey}, never when reporting
+ * a value, so they carry no performance constraint.
+ *
+ * @author gehel
+ */
+public final class Tags {
+
+    /** Tag set without any tag. */
+    public static final Tags EMPTY = new Tags(new String[0]);
+
+    /** Alternating tag keys and values. */
+    private final String[] keyValues;
+
+    /**
+     * Creates a tag set.
+     *
+     * @param keyValues
+     *            alternating tag keys and values
+     */
+    private Tags(final String[] keyValues) {
+        this.keyValues = keyValues;
+    }
+
+    /**
+     * Creates a tag set.
+     *
+     * @param keyValues
+     *            alternating tag keys and values
+     * @return the tag set
+     */
+    public static Tags of(final String... keyValues) {
+        if (keyValues.length % 2 != 0) {
+            throw new IllegalArgumentException(
+                    "tags must be given as key / value pairs");
+        }
+        for (String keyValue : keyValues) {
+            if (keyValue == null) {
+                throw new IllegalArgumentException(
+                        "tag keys and values cannot be null");
+            }
+        }
+        return new Tags(keyValues.clone());
+    }
+
+    /**
+     * Creates a new tag set with an additional tag.
+     *
+     * @param key
+     *            key of the tag
+     * @param value
+     *            value of the tag
+     * @return the new tag set
+     */
+    public Tags with(final String key, final String value) {
+        String[] newKeyValues = Arrays.copyOf(keyValues, keyValues.length + 2);
+        newKeyValues[keyValues.length] = key;
+        newKeyValues[keyValues.length + 1] = value;
+        return of(newKeyValues);
+    }
+
+    /**
+     * @return number of tags
+     */
+    public int size() {
+        return keyValues.length / 2;
+    }
+
+    /**
+     * @param index
+     *            index of the tag
+     * @return key of the tag
+     */
+    public String key(final int index) {
+        return keyValues[2 * index];
+    }
+
+    /**
+     * @param index
+     *            index of the tag
+     * @return value of the tag
+     */
+    public String value(final int index) {
+        return keyValues[2 * index + 1];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(final Object obj) {
+        return obj instanceof Tags
+                && Arrays.equals(keyValues, ((Tags) obj).keyValues);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(keyValues);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(key(i)).append('=').append(value(i));
+        }
+        return sb.append('}').toString();
+    }
+
+}
@@ -0,0 +1,233 @@
+/**
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+package ch.ledcom.tomcat.interceptors;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Prints the traces written by {@link TraceWriter} in a human readable form.
+ *
+ * Usage: <code>java ch.ledcom.tomcat.interceptors.TraceDecoder file</code>
+ *
+ * @author gehel
+ */
+public final class TraceDecoder {
+
+    /** Nanoseconds in a millisecond. */
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    /** Utility class, not instantiated. */
+    private TraceDecoder() {
+    }
+
+    /**
+     * Decode a trace file to standard output.
+     *
+     * @param args
+     *            path of the trace file
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java " + TraceDecoder.class.getName()
+                    + " <trace file>");
+            System.exit(1);
+        }
+        InputStream in = new BufferedInputStream(new FileInputStream(args[0]));
+        try {
+            decode(in, System.out);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Decode all records of a stream.
+     *
+     * @param in
+     *            stream of records
+     * @param out
+     *            where to print the decoded records
+     * @return number of records decoded
+     * @throws IOException
+     *             if the stream cannot be read or is corrupted
+     */
+    public static int decode(final InputStream in, final PrintStream out)
+            throws IOException {
+        SimpleDateFormat dateFormat = new SimpleDateFormat(
+                "yyyy-MM-dd'T'HH:mm:ss.SSSZ", Locale.ENGLISH);
+        int count = 0;
+        int first;
+        while ((first = in.read()) != -1) {
+            int length = (int) readVarLong(in, first);
+            byte[] payload = new byte[length];
+            readFully(in, payload);
+            decodeRecord(new ByteArrayInputStream(payload), out, dateFormat);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Decode a single record.
+     *
+     * @param in
+     *            payload of the record
+     * @param out
+     *            where to print the decoded record
+     * @param dateFormat
+     *            format used for the start time
+     * @throws IOException
+     *             if the record is corrupted
+     */
+    private static void decodeRecord(final InputStream in,
+            final PrintStream out, final SimpleDateFormat dateFormat)
+            throws IOException {
+        long version = readVarLong(in);
+        if (version != TransactionSpan.FORMAT_VERSION) {
+            throw new IOException("Unsupported trace format version "
+                    + version);
+        }
+        long traceId = readVarLong(in);
+        long startMillis = readVarLong(in);
+        long durationNanos = readVarLong(in);
+        long flags = readVarLong(in);
+        int childCount = (int) readVarLong(in);
+        long dropped = readVarLong(in);
+
+        StringBuilder header = new StringBuilder();
+        header.append(String.format(Locale.ENGLISH,
+                "trace %016x start=%s duration=%.3fms statements=%d", traceId,
+                dateFormat.format(new Date(startMillis)), durationNanos
+                        / NANOS_PER_MILLI, childCount));
+        if (dropped > 0) {
+            header.append(" dropped=").append(dropped);
+        }
+        if ((flags & TransactionSpan.FLAG_SAMPLED) != 0) {
+            header.append(" sampled");
+        }
+        if ((flags & TransactionSpan.FLAG_SLOW) != 0) {
+            header.append(" slow");
+        }
+        out.println(header);
+
+        for (int i = 0; i < childCount; i++) {
+            int method = readByte(in);
+            int outcome = readByte(in);
+            long offset = readVarLong(in);
+            long duration = readVarLong(in);
+            String methodName;
+            if (method < TransactionSpan.METHOD_NAMES.length) {
+                methodName = TransactionSpan.METHOD_NAMES[method];
+            } else {
+                methodName = "unknown(" + method + ")";
+            }
+            out.println(String.format(Locale.ENGLISH,
+                    "  +%.3fms %s %.3fms %s", offset / NANOS_PER_MILLI,
+                    methodName, duration / NANOS_PER_MILLI,
+                    outcome == TransactionSpan.OUTCOME_OK ? "ok" : "error"));
+        }
+    }
+
+    /**
+     * Read an unsigned variable length integer.
+     *
+     * @param in
+     *            stream to read from
+     * @return the value read
+     * @throws IOException
+     *             if the stream ends prematurely
+     */
+    private static long readVarLong(final InputStream in) throws IOException {
+        return readVarLong(in, readByte(in));
+    }
+
+    /**
+     * Read an unsigned variable length integer whose first byte has already
+     * been read.
+     *
+     * @param in
+     *            stream to read from
+     * @param first
+     *            first byte of the integer
+     * @return the value read
+     * @throws IOException
+     *             if the stream ends prematurely
+     */
+    private static long readVarLong(final InputStream in, final int first)
+            throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b = first;
+        while ((b & 0x80) != 0) {
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+            if (shift > 63) {
+                throw new IOException("Malformed variable length integer");
+            }
+            b = readByte(in);
+        }
+        return value | ((long) b << shift);
+    }
+
+    /**
+     * Read a single byte.
+     *
+     * @param in
+     *            stream to read from
+     * @return the byte read
+     * @throws IOException
+     *             if the stream ends prematurely
+     */
+    private static int readByte(final InputStream in) throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            throw new EOFException("Truncated trace record");
+        }
+        return b;
+    }
+
+    /**
+     * Fill a buffer from a stream.
+     *
+     * @param in
+     *            stream to read from
+     * @param buffer
+     *            buffer to fill
+     * @throws IOException
+     *             if the stream ends prematurely
+     */
+    private static void readFully(final InputStream in, final byte[] buffer)
+            throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int read = in.read(buffer, offset, buffer.length - offset);
+            if (read == -1) {
+                throw new EOFException("Truncated trace record");
+            }
+            offset += read;
+        }
+    }
+
+}
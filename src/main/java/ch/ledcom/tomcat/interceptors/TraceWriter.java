@@ -0,0 +1,265 @@
+/**
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+package ch.ledcom.tomcat.interceptors;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Appends encoded {@link TransactionSpan}s to a local file from a background
+ * thread.
+ *
+ * Interceptors are instantiated once per pooled connection, so a single
+ * writer is shared for each file. Records are dropped rather than blocking
+ * the caller when the writer cannot keep up. Records are appended whole: if a
+ * write fails, the file is truncated back to its last complete record.
+ *
+ * @author gehel
+ */
+public final class TraceWriter implements Runnable {
+    /** Standard logger. */
+    private static final Logger LOG = Logger.getLogger(TraceWriter.class
+            .getName());
+
+    /** Maximum number of records waiting to be written. */
+    private static final int QUEUE_CAPACITY = 1024;
+    /** Time waited for new records before checking if closed. */
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+    /** Maximum time to wait for queued records to be written on close. */
+    private static final long CLOSE_TIMEOUT_MILLIS = 10 * 1000;
+
+    /** Writers already started, by absolute file path. */
+    private static final ConcurrentMap<String, TraceWriter> WRITERS =
+            new ConcurrentHashMap<String, TraceWriter>();
+
+    /** Records waiting to be written. */
+    private final BlockingQueue<byte[]> queue =
+            new ArrayBlockingQueue<byte[]>(QUEUE_CAPACITY);
+    /** Records taken from the queue, written together. */
+    private final List<byte[]> batch = new ArrayList<byte[]>();
+    /** Number of records dropped because the queue was full or closed. */
+    private final AtomicLong dropped = new AtomicLong();
+    /** File to which records are appended. */
+    private final File file;
+    /** Thread writing the records. */
+    private final Thread thread;
+    /** Channel to the file, <code>null</code> until the first write. */
+    private FileChannel channel;
+    /** Set once the writer no longer accepts records. */
+    private volatile boolean closed;
+
+    /**
+     * Creates a writer, use {@link #forFile(String)} to get a started one.
+     *
+     * @param file
+     *            file to which records are appended
+     */
+    private TraceWriter(final File file) {
+        this.file = file;
+        thread = new Thread(this, "trace-writer-" + file.getName());
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Get the writer for a file, starting it if needed.
+     *
+     * @param path
+     *            path of the file to which records are appended
+     * @return the writer
+     */
+    public static TraceWriter forFile(final String path) {
+        return forKey(key(path));
+    }
+
+    /**
+     * Get the writer for a file, starting it if needed. Avoids resolving the
+     * path of the file on each call.
+     *
+     * @param key
+     *            key of the file, as returned by {@link #key(String)}
+     * @return the writer
+     */
+    public static TraceWriter forKey(final String key) {
+        TraceWriter writer = WRITERS.get(key);
+        if (writer == null) {
+            TraceWriter newWriter = new TraceWriter(new File(key));
+            writer = WRITERS.putIfAbsent(key, newWriter);
+            if (writer == null) {
+                writer = newWriter;
+                writer.thread.start();
+            }
+        }
+        return writer;
+    }
+
+    /**
+     * Stop the writer of a file, if started, once all queued records have been
+     * written. A later call to {@link #forFile(String)} starts a new writer.
+     *
+     * @param path
+     *            path of the file to which records are appended
+     * @throws InterruptedException
+     *             if interrupted while waiting for records to be written
+     */
+    public static void close(final String path) throws InterruptedException {
+        TraceWriter writer = WRITERS.remove(key(path));
+        if (writer != null) {
+            writer.closed = true;
+            writer.thread.join(CLOSE_TIMEOUT_MILLIS);
+        }
+    }
+
+    /**
+     * @param path
+     *            path of a trace file
+     * @return key of the file, to be used with {@link #forKey(String)}
+     */
+    public static String key(final String path) {
+        return new File(path).getAbsolutePath();
+    }
+
+    /**
+     * Queue a record for writing, without blocking.
+     *
+     * @param record
+     *            the encoded record
+     * @return <code>false</code> if the record was dropped
+     */
+    public boolean offer(final byte[] record) {
+        if (!closed && queue.offer(record)) {
+            // closed concurrently: the final drain may already have run, in
+            // which case the record is still queued and will never be written
+            if (!closed || !queue.remove(record)) {
+                return true;
+            }
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @return <code>true</code> once the writer no longer accepts records, a
+     *         new writer must then be obtained from {@link #forKey(String)}
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return number of records dropped because the queue was full or the
+     *         writer was closed
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Write records as they are queued, until closed. Records still queued
+     * when closed are written before returning.
+     */
+    @Override
+    public void run() {
+        // the thread is not interrupted on close, as an interrupt would also
+        // abort the write in progress
+        try {
+            while (!closed) {
+                byte[] record = queue.poll(POLL_TIMEOUT_MILLIS,
+                        TimeUnit.MILLISECONDS);
+                if (record != null) {
+                    batch.add(record);
+                    queue.drainTo(batch);
+                    writeBatch();
+                }
+            }
+        } catch (InterruptedException ie) {
+            // stop writing, after what is left below
+        } finally {
+            queue.drainTo(batch);
+            writeBatch();
+            closeChannel();
+        }
+    }
+
+    /**
+     * Append the records of the current batch, truncating the file back to
+     * its previous size if the write fails.
+     */
+    private void writeBatch() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        int size = 0;
+        for (byte[] record : batch) {
+            size += record.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (byte[] record : batch) {
+            buffer.put(record);
+        }
+        buffer.flip();
+        batch.clear();
+
+        long lastGoodSize = -1;
+        try {
+            if (channel == null) {
+                channel = new FileOutputStream(file, true).getChannel();
+            }
+            lastGoodSize = channel.size();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException ioe) {
+            LOG.log(Level.WARNING, String.format(
+                    "Could not write trace to file %s", file), ioe);
+            if (lastGoodSize >= 0) {
+                try {
+                    channel.truncate(lastGoodSize);
+                } catch (IOException tioe) {
+                    LOG.log(Level.WARNING, String.format(
+                            "Could not truncate trace file %s", file), tioe);
+                }
+            }
+            closeChannel();
+        }
+    }
+
+    /**
+     * Close the file, ignoring errors.
+     */
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException ioe) {
+            LOG.log(Level.FINE, "Could not close trace file", ioe);
+        }
+        channel = null;
+    }
+
+}
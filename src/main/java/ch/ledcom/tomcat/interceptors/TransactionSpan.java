@@ -0,0 +1,292 @@
+/**
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+package ch.ledcom.tomcat.interceptors;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Span covering one checkout of a connection from the pool, with a child span
+ * for each reported {@link java.sql.Connection} or {@link java.sql.Statement}
+ * call made while the connection was checked out.
+ *
+ * All data is kept in primitive arrays allocated once, so recording a span
+ * does not allocate. Like the connection it belongs to, a span is not
+ * thread-safe.
+ *
+ * @author gehel
+ */
+public class TransactionSpan {
+
+    /** Version of the binary format produced by {@link #encode()}. */
+    static final int FORMAT_VERSION = 1;
+    /** Flag set when the span has been randomly sampled. */
+    static final int FLAG_SAMPLED = 1;
+    /** Flag set when the span exceeded the slow threshold. */
+    static final int FLAG_SLOW = 2;
+    /** Outcome of a child span that completed normally. */
+    static final int OUTCOME_OK = 0;
+    /** Outcome of a child span that threw an exception. */
+    static final int OUTCOME_ERROR = 1;
+
+    /**
+     * Method names, indexed by the code used in the binary format. Code 0 is
+     * used for any method not in this list.
+     */
+    static final String[] METHOD_NAMES = {"other", "execute",
+            "executeBatch", "executeQuery", "executeUpdate", "commit",
+            "rollback", "createStatement", "getMetadata", "prepareCall",
+            "prepareStatement"};
+
+    /** Reverse lookup of {@link #METHOD_NAMES}. */
+    private static final Map<String, Integer> METHOD_CODES =
+            new HashMap<String, Integer>();
+
+    static {
+        for (int i = 0; i < METHOD_NAMES.length; i++) {
+            METHOD_CODES.put(METHOD_NAMES[i], i);
+        }
+    }
+
+    /** Method code of each child span. */
+    private final byte[] childMethods;
+    /** Outcome of each child span. */
+    private final byte[] childOutcomes;
+    /** Start of each child span, as returned by {@link System#nanoTime()}. */
+    private final long[] childStarts;
+    /** Duration of each child span (in nanoseconds). */
+    private final long[] childDurations;
+    /** Spans lasting at least this long are exported, 0 to disable. */
+    private final long slowThresholdNanos;
+
+    /** Identifier of the current trace. */
+    private long traceId;
+    /** Wall clock time at which the span started. */
+    private long startMillis;
+    /** Start of the span, as returned by {@link System#nanoTime()}. */
+    private long startNanos;
+    /** Duration of the span (in nanoseconds), set by {@link #end()}. */
+    private long durationNanos;
+    /** Number of child spans recorded. */
+    private int childCount;
+    /** Number of child spans not recorded because the arrays were full. */
+    private int droppedChildren;
+    /** Whether the span has been randomly sampled. */
+    private boolean sampled;
+    /** Whether the span has been started and not yet ended. */
+    private boolean active;
+    /**
+     * Incremented each time the span is reset, so that children recorded by
+     * statements of a previous checkout can be told apart.
+     */
+    private volatile long generation;
+
+    /**
+     * Creates a span able to record a fixed number of children.
+     *
+     * @param maxChildren
+     *            maximum number of child spans recorded, further children are
+     *            only counted
+     * @param slowThresholdNanos
+     *            spans lasting at least this long (in nanoseconds) are
+     *            exported even if not sampled, 0 to disable
+     */
+    public TransactionSpan(final int maxChildren,
+            final long slowThresholdNanos) {
+        childMethods = new byte[maxChildren];
+        childOutcomes = new byte[maxChildren];
+        childStarts = new long[maxChildren];
+        childDurations = new long[maxChildren];
+        this.slowThresholdNanos = slowThresholdNanos;
+    }
+
+    /**
+     * Start a new span, discarding any previously recorded data.
+     *
+     * @param newTraceId
+     *            identifier of the trace
+     * @param isSampled
+     *            whether this span has been randomly sampled
+     */
+    public final void begin(final long newTraceId, final boolean isSampled) {
+        reset();
+        traceId = newTraceId;
+        sampled = isSampled;
+        startMillis = System.currentTimeMillis();
+        startNanos = System.nanoTime();
+        active = true;
+    }
+
+    /**
+     * Record a child span. Ignored if the span is not active or has been reset
+     * since the given generation.
+     *
+     * @param childGeneration
+     *            value of {@link #getGeneration()} when the caller started
+     *            recording into this span
+     * @param methodName
+     *            name of the method being called
+     * @param start
+     *            start of the call, as returned by {@link System#nanoTime()}
+     * @param duration
+     *            duration of the call (in nanoseconds)
+     * @param failed
+     *            <code>true</code> if the call threw an exception
+     */
+    public final void addChild(final long childGeneration,
+            final String methodName, final long start, final long duration,
+            final boolean failed) {
+        if (!active || childGeneration != generation) {
+            return;
+        }
+        // a statement racing with a new checkout can still get past the
+        // checks above, never index past the arrays
+        if (childCount >= childMethods.length) {
+            droppedChildren++;
+            return;
+        }
+        Integer code = METHOD_CODES.get(methodName);
+        childMethods[childCount] = (byte) (code == null ? 0 : code);
+        childOutcomes[childCount] = (byte) (failed ? OUTCOME_ERROR
+                : OUTCOME_OK);
+        childStarts[childCount] = start;
+        childDurations[childCount] = duration;
+        childCount++;
+    }
+
+    /**
+     * End the span. Does nothing if the span is not active.
+     *
+     * @return <code>true</code> if the span was active
+     */
+    public final boolean end() {
+        if (!active) {
+            return false;
+        }
+        durationNanos = System.nanoTime() - startNanos;
+        active = false;
+        return true;
+    }
+
+    /**
+     * Discard all recorded data, leaving the span inactive.
+     */
+    public final void reset() {
+        generation++;
+        traceId = 0;
+        startMillis = 0;
+        startNanos = 0;
+        durationNanos = 0;
+        childCount = 0;
+        droppedChildren = 0;
+        sampled = false;
+        active = false;
+    }
+
+    /**
+     * @return current generation of the span, changed by {@link #reset()} and
+     *         {@link #begin(long, boolean)}
+     */
+    public final long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return <code>true</code> if the span has been started and not yet ended
+     */
+    public final boolean isActive() {
+        return active;
+    }
+
+    /**
+     * @return <code>true</code> if the span exceeded the slow threshold
+     */
+    public final boolean isSlow() {
+        return slowThresholdNanos > 0 && durationNanos >= slowThresholdNanos;
+    }
+
+    /**
+     * Check if an ended span should be exported.
+     *
+     * @return <code>true</code> if the span was sampled or was slow
+     */
+    public final boolean shouldExport() {
+        return sampled || isSlow();
+    }
+
+    /**
+     * Encode the span in the compact binary format read by
+     * {@link TraceDecoder}.
+     *
+     * Each record is prefixed by its length. All integers are unsigned
+     * variable length (7 bits per byte, least significant group first).
+     * The record contains the format version, the trace id, the start time
+     * (milliseconds since epoch), the duration (nanoseconds), the flags, the
+     * number of recorded and dropped children, then for each child its method
+     * code, its outcome, its offset from the start of the span and its
+     * duration (nanoseconds).
+     *
+     * @return the encoded record
+     */
+    public final byte[] encode() {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(
+                32 + childCount * 8);
+        writeVarLong(payload, FORMAT_VERSION);
+        writeVarLong(payload, traceId);
+        writeVarLong(payload, startMillis);
+        writeVarLong(payload, durationNanos);
+        int flags = 0;
+        if (sampled) {
+            flags |= FLAG_SAMPLED;
+        }
+        if (isSlow()) {
+            flags |= FLAG_SLOW;
+        }
+        writeVarLong(payload, flags);
+        writeVarLong(payload, childCount);
+        writeVarLong(payload, droppedChildren);
+        for (int i = 0; i < childCount; i++) {
+            payload.write(childMethods[i]);
+            payload.write(childOutcomes[i]);
+            writeVarLong(payload, Math.max(0, childStarts[i] - startNanos));
+            writeVarLong(payload, childDurations[i]);
+        }
+        ByteArrayOutputStream record = new ByteArrayOutputStream(
+                payload.size() + 5);
+        writeVarLong(record, payload.size());
+        byte[] data = payload.toByteArray();
+        record.write(data, 0, data.length);
+        return record.toByteArray();
+    }
+
+    /**
+     * Write an unsigned variable length integer.
+     *
+     * @param out
+     *            where to write
+     * @param value
+     *            the value to write
+     */
+    private static void writeVarLong(final ByteArrayOutputStream out,
+            final long value) {
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+}
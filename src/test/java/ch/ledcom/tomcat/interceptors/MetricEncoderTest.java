@@ -0,0 +1,47 @@
+/**
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+package ch.ledcom.tomcat.interceptors;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class MetricEncoderTest {
+
+    private static final Tags TAGS = Tags.of("pool", "my pool", "method",
+            "execute");
+
+    @Test
+    public void statsdDropsTags() {
+        assertEquals("jdbc.timing:<value>|ms|@0.500000",
+                new StatsdEncoder().encode("jdbc.timing", TAGS, "ms", 0.5)
+                        .toString());
+    }
+
+    @Test
+    public void dogStatsdAppendsTags() {
+        assertEquals(
+                "jdbc.timing:<value>|ms|@0.500000|#pool:my_pool,method:execute",
+                new DogStatsdEncoder().encode("jdbc.timing", TAGS, "ms", 0.5)
+                        .toString());
+    }
+
+    @Test
+    public void influxEscapesTags() {
+        assertEquals(
+                "jdbc.timing,pool=my\\ pool,method=execute value=<value>i",
+                new InfluxLineEncoder().encode("jdbc.timing", TAGS, "ms", 0.5)
+                        .toString());
+    }
+}
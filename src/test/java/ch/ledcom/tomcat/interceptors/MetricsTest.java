@@ -0,0 +1,103 @@
+/**
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+package ch.ledcom.tomcat.interceptors;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.Locale;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricsTest {
+
+    private static final int SOCKET_TIMEOUT = 5000;
+    private static final int RECEIVE_BUFFER_SIZE = 1500;
+    private static final String PREFIX = "jdbc.pool";
+
+    private DatagramSocket receiver;
+
+    @Before
+    public void openReceiver() throws IOException {
+        receiver = new DatagramSocket(0, InetAddress.getByName("localhost"));
+        receiver.setSoTimeout(SOCKET_TIMEOUT);
+    }
+
+    @Test
+    public void plainStatsdLineIsUnchanged() throws IOException {
+        metrics(new StatsdEncoder(), 0.25).timing(
+                ".statement.execute.timing", 1234L);
+        assertEquals(String.format(Locale.ENGLISH, "%s:%d|ms|@%f", PREFIX
+                + ".statement.execute.timing", 1234L, 0.25), receive());
+    }
+
+    @Test
+    public void valuesAreWrittenInDecimal() throws IOException {
+        Metrics metrics = metrics(new StatsdEncoder(), 1.0);
+        long[] values = {0, 7, -1, -1234567, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long value : values) {
+            metrics.timing(".x", value);
+            assertEquals(PREFIX + ".x:" + value + "|ms|@1.000000", receive());
+        }
+    }
+
+    @Test
+    public void tagsAreSentOnTheWire() throws IOException {
+        Metrics metrics = metrics(new DogStatsdEncoder(), 1.0);
+        metrics.timing(metrics.timer(".x", Tags.of("pool", "p", "method",
+                "execute")), 42);
+        assertEquals(PREFIX + ".x:42|ms|@1.000000|#pool:p,method:execute",
+                receive());
+
+        metrics = metrics(new InfluxLineEncoder(), 1.0);
+        metrics.timing(metrics.timer(".x", Tags.of("pool", "p")), -42);
+        assertEquals(PREFIX + ".x,pool=p value=-42i", receive());
+    }
+
+    @Test
+    public void tagSetsWithSameTextAreNotConfused() throws IOException {
+        Metrics metrics = metrics(new InfluxLineEncoder(), 1.0);
+        MetricKey oneTag = metrics.timer(".x", Tags.of("pool", "a,host=b"));
+        MetricKey twoTags = metrics.timer(".x",
+                Tags.of("pool", "a", "host", "b"));
+
+        metrics.timing(oneTag, 1);
+        assertEquals(PREFIX + ".x,pool=a\\,host\\=b value=1i", receive());
+        metrics.timing(twoTags, 2);
+        assertEquals(PREFIX + ".x,pool=a,host=b value=2i", receive());
+    }
+
+    @After
+    public void closeReceiver() {
+        receiver.close();
+    }
+
+    private Metrics metrics(final MetricEncoder encoder,
+            final double sampleRate) {
+        return new Metrics("localhost", receiver.getLocalPort(),
+                PREFIX, sampleRate, encoder);
+    }
+
+    private String receive() throws IOException {
+        byte[] data = new byte[RECEIVE_BUFFER_SIZE];
+        DatagramPacket packet = new DatagramPacket(data, data.length);
+        receiver.receive(packet);
+        return new String(data, 0, packet.getLength(), "utf-8");
+    }
+}
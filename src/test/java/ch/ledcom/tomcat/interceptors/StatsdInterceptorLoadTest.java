@@ -0,0 +1,356 @@
+/**
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+package ch.ledcom.tomcat.interceptors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.apache.tomcat.jdbc.pool.PoolProperties;
+import org.hsqldb.jdbc.JDBCDriver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs many threads against HSQLDB through the pool and checks what reaches a
+ * local {@link StatsdStandIn}.
+ *
+ * As it takes time and makes wall clock assertions, this suite only runs when
+ * the <code>loadTest.enabled</code> system property is <code>true</code>.
+ * Thresholds can be tuned with the system properties
+ * <code>loadTest.threads</code>, <code>loadTest.durationMillis</code>,
+ * <code>loadTest.maxLoss</code>, <code>loadTest.maxOverheadRatio</code> and
+ * <code>loadTest.overheadSlackMicros</code>.
+ *
+ * The mean time of an operation through the interceptor must stay under the
+ * mean time without interceptor times <code>1 + maxOverheadRatio</code>, plus
+ * <code>overheadSlackMicros</code> to absorb the noise on fast operations.
+ */
+public class StatsdInterceptorLoadTest {
+
+    private static final int THREADS = Integer.getInteger("loadTest.threads",
+            8);
+    private static final long DURATION_MILLIS = Long.getLong(
+            "loadTest.durationMillis", 2000);
+    private static final double MAX_LOSS = Double.parseDouble(System
+            .getProperty("loadTest.maxLoss", "0.05"));
+    private static final double MAX_OVERHEAD_RATIO = Double.parseDouble(
+            System.getProperty("loadTest.maxOverheadRatio", "1.0"));
+    private static final long OVERHEAD_SLACK_MICROS = Long.getLong(
+            "loadTest.overheadSlackMicros", 50);
+    private static final long DRAIN_TIMEOUT = 10 * 1000;
+    private static final long SLOW_RECEIVER_DELAY_MILLIS = 5;
+    private static final String STATSD_PREFIX = "jdbc.load";
+    private static final String POOL_NAME = "load";
+    /** Keys expected for each operation, with the method they report. */
+    private static final Map<String, String> EXPECTED_KEYS =
+            new LinkedHashMap<String, String>();
+
+    static {
+        EXPECTED_KEYS.put(STATSD_PREFIX + ".connection.createStatement.timing",
+                "createStatement");
+        EXPECTED_KEYS.put(STATSD_PREFIX + ".statement.execute.timing",
+                "execute");
+        EXPECTED_KEYS.put(STATSD_PREFIX + ".connection.commit.timing",
+                "commit");
+    }
+
+    private static final AtomicInteger DATABASE_COUNTER = new AtomicInteger();
+
+    private final List<DataSource> dataSources = new ArrayList<DataSource>();
+    private StatsdStandIn standIn;
+
+    @Before
+    public void onlyRunWhenEnabled() {
+        assumeTrue(Boolean.getBoolean("loadTest.enabled"));
+    }
+
+    @Test
+    public void statsdMetricsAreReceivedUnderConcurrentLoad()
+            throws Exception {
+        assertMetricsReceivedUnderLoad("statsd");
+    }
+
+    @Test
+    public void dogStatsdMetricsAreReceivedUnderConcurrentLoad()
+            throws Exception {
+        assertMetricsReceivedUnderLoad("dogstatsd");
+    }
+
+    @Test
+    public void influxMetricsAreReceivedUnderConcurrentLoad()
+            throws Exception {
+        assertMetricsReceivedUnderLoad("influx");
+    }
+
+    @Test
+    public void interceptorOverheadIsBounded() throws Exception {
+        LoadResult baseline = measure(createDataSource(null, null));
+        standIn = StatsdStandIn.start();
+        LoadResult intercepted = measure(createDataSource(standIn.getPort(),
+                "statsd"));
+        assertOverheadIsBounded("fast receiver", baseline, intercepted);
+    }
+
+    @Test
+    public void slowReceiverDoesNotSlowDownClients() throws Exception {
+        LoadResult baseline = measure(createDataSource(null, null));
+        standIn = StatsdStandIn.start(SLOW_RECEIVER_DELAY_MILLIS);
+        LoadResult intercepted = measure(createDataSource(standIn.getPort(),
+                "statsd"));
+        // the clients did not wait for the receiver, see the bound above
+        assertOverheadIsBounded("slow receiver", baseline, intercepted);
+
+        // let the receiver catch up with what is left in its socket buffer,
+        // what is still missing then was dropped; how much depends on the
+        // buffer size, so the loss is only reported
+        standIn.setProcessingDelayMillis(0);
+        long emitted = EXPECTED_KEYS.size() * intercepted.totalOperations();
+        standIn.awaitLines(emitted, DRAIN_TIMEOUT);
+        long received = standIn.getLines();
+        System.out.println("slow receiver: received " + received + " of "
+                + emitted + " lines after draining, loss "
+                + loss(received, emitted));
+        assertTrue("More lines received than emitted.", received <= emitted);
+    }
+
+    @Test
+    public void absentReceiverDoesNotBreakClients() throws Exception {
+        LoadResult result = runLoad(createDataSource(
+                TestDataSources.unusedPort(), "statsd"), DURATION_MILLIS);
+        result.assertNoErrors();
+        System.out.println("absent receiver: " + result);
+        assertTrue(result.operations() > 0);
+    }
+
+    private void assertMetricsReceivedUnderLoad(final String format)
+            throws Exception {
+        standIn = StatsdStandIn.start();
+        LoadResult result = runLoad(createDataSource(standIn.getPort(),
+                format), DURATION_MILLIS);
+        result.assertNoErrors();
+
+        standIn.awaitLines(EXPECTED_KEYS.size() * result.operations(),
+                DRAIN_TIMEOUT);
+        System.out.println(format + " load: " + result + ", received "
+                + standIn.getLines() + " lines in " + standIn.getPackets()
+                + " packets");
+
+        assertEquals("Malformed lines were received.", 0,
+                standIn.getMalformed());
+        assertEquals("Unexpected keys were received.", new HashSet<String>(
+                EXPECTED_KEYS.keySet()), standIn.counts().keySet());
+        for (Map.Entry<String, String> entry : EXPECTED_KEYS.entrySet()) {
+            String key = entry.getKey();
+            String tags = expectedTags(format, entry.getValue());
+            long received = standIn.count(key, tags);
+            assertEquals("Lines of " + key + " received without tags "
+                    + tags, standIn.count(key), received);
+            assertTrue("More " + key + " received than emitted.",
+                    received <= result.operations());
+            double loss = loss(received, result.operations());
+            assertTrue("Loss of " + key + " is " + loss, loss <= MAX_LOSS);
+        }
+    }
+
+    private static String expectedTags(final String format,
+            final String method) {
+        if ("statsd".equals(format)) {
+            return "";
+        }
+        return "pool=" + POOL_NAME + ",host=unknown,method=" + method
+                + ",outcome=ok";
+    }
+
+    private static double loss(final long received, final long emitted) {
+        return 1.0 - (double) received / emitted;
+    }
+
+    private static void assertOverheadIsBounded(final String name,
+            final LoadResult baseline, final LoadResult intercepted) {
+        baseline.assertNoErrors();
+        intercepted.assertNoErrors();
+        long overheadNanos = intercepted.meanNanos() - baseline.meanNanos();
+        double overheadRatio = (double) overheadNanos / baseline.meanNanos();
+        long boundNanos = (long) (baseline.meanNanos()
+                * (1 + MAX_OVERHEAD_RATIO)) + OVERHEAD_SLACK_MICROS * 1000;
+        String report = name + ": baseline " + baseline + ", intercepted "
+                + intercepted + ", overhead " + overheadNanos / 1000 + "us ("
+                + Math.round(overheadRatio * 100) + "%), bound "
+                + boundNanos / 1000 + "us";
+        System.out.println(report);
+        assertTrue(report, intercepted.meanNanos() <= boundNanos);
+    }
+
+    /**
+     * Warm up a pool, then measure it.
+     */
+    private LoadResult measure(final DataSource ds)
+            throws InterruptedException {
+        LoadResult warmUp = runLoad(ds, DURATION_MILLIS / 2);
+        warmUp.assertNoErrors();
+        LoadResult result = runLoad(ds, DURATION_MILLIS);
+        result.warmUpOperations = warmUp.operations();
+        return result;
+    }
+
+    @After
+    public void closeDataSources() {
+        for (DataSource ds : dataSources) {
+            ds.close();
+        }
+    }
+
+    @After
+    public void stopStandIn() throws IOException, InterruptedException {
+        if (standIn != null) {
+            standIn.stop();
+        }
+    }
+
+    /**
+     * Create a pool on a new in-memory database containing a one row table.
+     *
+     * @param statsdPort
+     *            port of the Statsd server, <code>null</code> to create a pool
+     *            without interceptor
+     * @param format
+     *            wire format of the metrics
+     */
+    private DataSource createDataSource(final Integer statsdPort,
+            final String format) throws SQLException {
+        String database = "load" + DATABASE_COUNTER.incrementAndGet();
+        String interceptorOptions = null;
+        if (statsdPort != null) {
+            interceptorOptions = "hostname=localhost,port=" + statsdPort
+                    + ",sampleRate=1.0,prefix=" + STATSD_PREFIX + ",format="
+                    + format + ",poolName=" + POOL_NAME;
+        }
+        PoolProperties poolProperties = TestDataSources.poolProperties(
+                database, interceptorOptions);
+        poolProperties.setMaxActive(THREADS);
+        poolProperties.setMaxIdle(THREADS);
+
+        Properties info = new Properties();
+        info.setProperty("user", "sa");
+        info.setProperty("password", "");
+        Connection setup = new JDBCDriver().connect(poolProperties.getUrl(),
+                info);
+        try {
+            Statement stmt = setup.createStatement();
+            stmt.execute("create table load_test (a integer)");
+            stmt.execute("insert into load_test values (1)");
+            stmt.close();
+        } finally {
+            setup.close();
+        }
+
+        DataSource ds = TestDataSources.dataSource(poolProperties);
+        dataSources.add(ds);
+        return ds;
+    }
+
+    /**
+     * Run {@link #THREADS} threads, each borrowing a connection, executing a
+     * statement and committing in a loop for the given duration.
+     */
+    private LoadResult runLoad(final DataSource ds, final long durationMillis)
+            throws InterruptedException {
+        final LoadResult result = new LoadResult();
+        final long deadline = System.currentTimeMillis() + durationMillis;
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (System.currentTimeMillis() < deadline) {
+                            long start = System.nanoTime();
+                            Connection conn = ds.getConnection();
+                            try {
+                                Statement stmt = conn.createStatement();
+                                stmt.execute("select a from load_test");
+                                stmt.close();
+                                conn.commit();
+                            } finally {
+                                conn.close();
+                            }
+                            result.record(System.nanoTime() - start);
+                        }
+                    } catch (Throwable t) {
+                        result.errors.add(t);
+                    }
+                }
+            }, "load-" + i);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return result;
+    }
+
+    private static final class LoadResult {
+        private final AtomicLong operations = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final List<Throwable> errors =
+                new CopyOnWriteArrayList<Throwable>();
+        private long warmUpOperations;
+
+        private void record(final long nanos) {
+            operations.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+        }
+
+        private long operations() {
+            return operations.get();
+        }
+
+        private long totalOperations() {
+            return warmUpOperations + operations();
+        }
+
+        private long meanNanos() {
+            long ops = operations.get();
+            return ops == 0 ? 0 : totalNanos.get() / ops;
+        }
+
+        private void assertNoErrors() {
+            if (!errors.isEmpty()) {
+                throw new AssertionError(errors.get(0));
+            }
+        }
+
+        @Override
+        public String toString() {
+            return operations() + " operations, mean " + meanNanos() + "ns";
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/**
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+package ch.ledcom.tomcat.interceptors;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local Statsd server counting the lines received for each key and for each
+ * key and tag set.
+ *
+ * Understands the formats of {@link StatsdEncoder} (<code>key:1|ms</code>),
+ * {@link DogStatsdEncoder} (<code>key:1|ms|@1.0|#k:v,k:v</code>) and
+ * {@link InfluxLineEncoder} (<code>key,k=v,k=v value=1i</code>). Tag sets are
+ * normalized to <code>k=v,k=v</code>, in the order they were sent.
+ *
+ * The first lines received are also kept as is, in order.
+ *
+ * Binds an ephemeral port on localhost. A processing delay can be configured
+ * to simulate a slow server.
+ */
+public final class StatsdStandIn implements Runnable {
+
+    private static final Charset UTF_8 = Charset.forName("utf-8");
+    private static final int RECEIVE_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final int MAX_PACKET_SIZE = 65536;
+    private static final int SELECT_TIMEOUT = 100;
+    private static final int MAX_RECORDED_LINES = 1000;
+    private static final byte[] TIMING_TYPE = "|ms".getBytes(UTF_8);
+    private static final byte[] SAMPLE_RATE = "|@".getBytes(UTF_8);
+    private static final byte[] STATSD_TAGS = "|#".getBytes(UTF_8);
+    private static final byte[] INFLUX_VALUE = " value=".getBytes(UTF_8);
+
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final Thread thread;
+    private final ConcurrentMap<String, AtomicLong> counts =
+            new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, AtomicLong> taggedCounts =
+            new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong packets = new AtomicLong();
+    private final AtomicLong lines = new AtomicLong();
+    private final AtomicLong malformed = new AtomicLong();
+    private final List<String> recordedLines =
+            Collections.synchronizedList(new ArrayList<String>());
+    private volatile long processingDelayMillis;
+    private volatile IOException failure;
+    private volatile boolean running = true;
+
+    private StatsdStandIn(final long processingDelayMillis)
+            throws IOException {
+        this.processingDelayMillis = processingDelayMillis;
+        channel = DatagramChannel.open();
+        channel.socket().setReceiveBufferSize(RECEIVE_BUFFER_SIZE);
+        channel.socket().bind(new InetSocketAddress("localhost", 0));
+        channel.configureBlocking(false);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+        thread = new Thread(this, "statsd-stand-in");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Start a stand-in processing packets as fast as possible.
+     */
+    public static StatsdStandIn start() throws IOException {
+        return start(0);
+    }
+
+    /**
+     * Start a stand-in waiting the given delay after each packet.
+     */
+    public static StatsdStandIn start(final long processingDelayMillis)
+            throws IOException {
+        StatsdStandIn standIn = new StatsdStandIn(processingDelayMillis);
+        standIn.thread.start();
+        return standIn;
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_PACKET_SIZE);
+        try {
+            while (running) {
+                if (selector.select(SELECT_TIMEOUT) == 0) {
+                    continue;
+                }
+                selector.selectedKeys().clear();
+                buffer.clear();
+                while (running && channel.receive(buffer) != null) {
+                    packets.incrementAndGet();
+                    parse(buffer.array(), buffer.position());
+                    buffer.clear();
+                    long delay = processingDelayMillis;
+                    if (delay > 0) {
+                        Thread.sleep(delay);
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            failure = ioe;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Parse the lines of a packet. Parsing works on bytes to keep up with
+     * many senders.
+     */
+    private void parse(final byte[] packet, final int length) {
+        int start = 0;
+        while (start < length) {
+            int end = start;
+            while (end < length && packet[end] != '\n') {
+                end++;
+            }
+            parseLine(packet, start, end);
+            start = end + 1;
+        }
+    }
+
+    private void parseLine(final byte[] packet, final int start,
+            final int end) {
+        int nameEnd = start;
+        while (nameEnd < end && packet[nameEnd] != ':'
+                && packet[nameEnd] != ',' && packet[nameEnd] != ' ') {
+            nameEnd++;
+        }
+        String tags = null;
+        if (nameEnd > start && nameEnd < end) {
+            if (packet[nameEnd] == ':') {
+                tags = parseStatsd(packet, nameEnd + 1, end);
+            } else {
+                tags = parseInflux(packet, nameEnd, end);
+            }
+        }
+        if (tags == null) {
+            malformed.incrementAndGet();
+            return;
+        }
+        String key = new String(packet, start, nameEnd - start, UTF_8);
+        increment(counts, key);
+        increment(taggedCounts, key + '|' + tags);
+        if (recordedLines.size() < MAX_RECORDED_LINES) {
+            recordedLines.add(new String(packet, start, end - start, UTF_8));
+        }
+        lines.incrementAndGet();
+    }
+
+    /**
+     * Parse what follows the key of a Statsd or DogStatsD line.
+     *
+     * @return the tags, or <code>null</code> if the line is malformed
+     */
+    private static String parseStatsd(final byte[] packet, final int start,
+            final int end) {
+        int pos = skipNumber(packet, start, end);
+        if (pos < 0 || !startsWith(packet, pos, end, TIMING_TYPE)) {
+            return null;
+        }
+        pos += TIMING_TYPE.length;
+        if (startsWith(packet, pos, end, SAMPLE_RATE)) {
+            pos += SAMPLE_RATE.length;
+            int rateStart = pos;
+            while (pos < end && (packet[pos] == '.'
+                    || (packet[pos] >= '0' && packet[pos] <= '9'))) {
+                pos++;
+            }
+            if (pos == rateStart) {
+                return null;
+            }
+        }
+        if (pos == end) {
+            return "";
+        }
+        if (!startsWith(packet, pos, end, STATSD_TAGS)) {
+            return null;
+        }
+        pos += STATSD_TAGS.length;
+        return new String(packet, pos, end - pos, UTF_8).replace(':', '=');
+    }
+
+    /**
+     * Parse what follows the measurement of an InfluxDB line.
+     *
+     * @return the tags, or <code>null</code> if the line is malformed
+     */
+    private static String parseInflux(final byte[] packet, final int start,
+            final int end) {
+        int pos = start;
+        String tags = "";
+        if (packet[pos] == ',') {
+            pos++;
+            int tagsStart = pos;
+            while (pos < end && packet[pos] != ' ') {
+                if (packet[pos] == '\\') {
+                    pos++;
+                }
+                pos++;
+            }
+            tags = new String(packet, tagsStart, Math.min(pos, end)
+                    - tagsStart, UTF_8);
+        }
+        if (!startsWith(packet, pos, end, INFLUX_VALUE)) {
+            return null;
+        }
+        pos = skipNumber(packet, pos + INFLUX_VALUE.length, end);
+        if (pos != end - 1 || packet[pos] != 'i') {
+            return null;
+        }
+        return tags;
+    }
+
+    /**
+     * @return the position after an integer, or -1 if there is none
+     */
+    private static int skipNumber(final byte[] packet, final int start,
+            final int end) {
+        int pos = start;
+        if (pos < end && packet[pos] == '-') {
+            pos++;
+        }
+        int digitsStart = pos;
+        while (pos < end && packet[pos] >= '0' && packet[pos] <= '9') {
+            pos++;
+        }
+        return pos == digitsStart ? -1 : pos;
+    }
+
+    private static void increment(final ConcurrentMap<String, AtomicLong> map,
+            final String key) {
+        AtomicLong count = map.get(key);
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = map.putIfAbsent(key, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    private static boolean startsWith(final byte[] data, final int start,
+            final int end, final byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Wait until at least the expected number of lines has been received.
+     *
+     * @return <code>true</code> if the lines were received before the timeout
+     */
+    public boolean awaitLines(final long expected, final long timeoutMillis)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (lines.get() < expected) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * Change the delay waited after each packet, for example to drain the
+     * receive buffer of a slow stand-in.
+     */
+    public void setProcessingDelayMillis(final long processingDelayMillis) {
+        this.processingDelayMillis = processingDelayMillis;
+    }
+
+    /**
+     * Stop receiving and release the port.
+     */
+    public void stop() throws IOException, InterruptedException {
+        running = false;
+        selector.wakeup();
+        thread.join();
+        selector.close();
+        channel.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public int getPort() {
+        return channel.socket().getLocalPort();
+    }
+
+    public long count(final String key) {
+        AtomicLong count = counts.get(key);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Count the lines received for a key with exactly the given tags.
+     *
+     * @param tags
+     *            tags as <code>k=v,k=v</code>, empty for untagged lines
+     */
+    public long count(final String key, final String tags) {
+        AtomicLong count = taggedCounts.get(key + '|' + tags);
+        return count == null ? 0 : count.get();
+    }
+
+    public Map<String, Long> counts() {
+        Map<String, Long> snapshot = new HashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : counts.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the first lines received, in the order they were received
+     */
+    public List<String> getRecordedLines() {
+        synchronized (recordedLines) {
+            return new ArrayList<String>(recordedLines);
+        }
+    }
+
+    public long getPackets() {
+        return packets.get();
+    }
+
+    public long getLines() {
+        return lines.get();
+    }
+
+    public long getMalformed() {
+        return malformed.get();
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+package ch.ledcom.tomcat.interceptors;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.apache.tomcat.jdbc.pool.PoolProperties;
+import org.hsqldb.jdbc.JDBCDriver;
+
+/**
+ * Pools of in-memory HSQLDB databases, shared by the tests.
+ */
+final class TestDataSources {
+
+    private TestDataSources() {
+    }
+
+    /**
+     * Properties of a pool of an in-memory database, intercepted by
+     * {@link StatsdInterceptor}.
+     *
+     * @param database
+     *            name of the in-memory database
+     * @param interceptorOptions
+     *            options of the interceptor, <code>null</code> to leave the
+     *            pool without interceptor
+     */
+    static PoolProperties poolProperties(final String database,
+            final String interceptorOptions) {
+        PoolProperties poolProperties = new PoolProperties();
+        poolProperties.setDriverClassName(JDBCDriver.class.getName());
+        poolProperties.setUrl("jdbc:hsqldb:mem:" + database);
+        poolProperties.setUsername("sa");
+        poolProperties.setPassword("");
+        if (interceptorOptions != null) {
+            poolProperties.setJdbcInterceptors(StatsdInterceptor.class
+                    .getName() + "(" + interceptorOptions + ")");
+        }
+        return poolProperties;
+    }
+
+    static DataSource dataSource(final PoolProperties poolProperties) {
+        DataSource ds = new DataSource();
+        ds.setPoolProperties(poolProperties);
+        return ds;
+    }
+
+    static DataSource dataSource(final String database,
+            final String interceptorOptions) {
+        return dataSource(poolProperties(database, interceptorOptions));
+    }
+
+    /**
+     * Find a local port on which nothing is listening.
+     */
+    static int unusedPort() throws IOException {
+        DatagramSocket probe = new DatagramSocket(0);
+        try {
+            return probe.getLocalPort();
+        } finally {
+            probe.close();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+package ch.ledcom.tomcat.interceptors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import org.junit.Test;
+
+public class TransactionSpanTest {
+
+    @Test
+    public void encodedSpansCanBeDecoded() throws IOException {
+        TransactionSpan span = new TransactionSpan(2, 0);
+        span.begin(42L, true);
+        long now = System.nanoTime();
+        span.addChild(span.getGeneration(), "execute", now, 1000000, false);
+        span.addChild(span.getGeneration(), "commit", now, 2000000, true);
+        span.addChild(span.getGeneration(), "executeQuery",
+                now, 3000000, false);
+        assertTrue(span.end());
+
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        records.write(span.encode());
+        records.write(span.encode());
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        int count = TraceDecoder.decode(
+                new ByteArrayInputStream(records.toByteArray()),
+                new PrintStream(decoded, true, "utf-8"));
+
+        assertEquals(2, count);
+        String[] lines = decoded.toString("utf-8").split("\n");
+        assertEquals(6, lines.length);
+        assertTrue(lines[0].startsWith("trace 000000000000002a "));
+        assertTrue(lines[0].contains("statements=2 dropped=1 sampled"));
+        assertTrue(lines[1].endsWith("execute 1.000ms ok"));
+        assertTrue(lines[2].endsWith("commit 2.000ms error"));
+    }
+
+    @Test
+    public void onlySampledOrSlowSpansAreExported()
+            throws InterruptedException {
+        TransactionSpan span = new TransactionSpan(1, Long.MAX_VALUE);
+        span.begin(1L, false);
+        span.end();
+        assertFalse(span.shouldExport());
+
+        span = new TransactionSpan(1, 1000000L);
+        span.begin(1L, false);
+        // make sure the span lasts longer than the 1ms threshold
+        Thread.sleep(5);
+        span.end();
+        assertTrue(span.shouldExport());
+    }
+
+    @Test
+    public void inactiveSpansIgnoreChildren() {
+        TransactionSpan span = new TransactionSpan(1, 0);
+        span.addChild(span.getGeneration(), "execute", System.nanoTime(), 1,
+                false);
+        assertFalse(span.end());
+        span.begin(1L, true);
+        span.reset();
+        assertFalse(span.isActive());
+    }
+
+    @Test
+    public void childrenOfAPreviousGenerationAreIgnored() throws IOException {
+        TransactionSpan span = new TransactionSpan(1, 0);
+        span.begin(1L, true);
+        long stale = span.getGeneration();
+        span.end();
+        span.begin(2L, true);
+        span.addChild(stale, "execute", System.nanoTime(), 1, false);
+        span.end();
+
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        TraceDecoder.decode(new ByteArrayInputStream(span.encode()),
+                new PrintStream(decoded, true, "utf-8"));
+        assertTrue(decoded.toString("utf-8").contains(" statements=0 "));
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ */
+package ch.ledcom.tomcat.interceptors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.apache.tomcat.jdbc.pool.PoolProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TransactionTraceTest {
+
+    private File traceFile;
+    private DataSource ds;
+
+    @Before
+    public void createDataSource() throws IOException {
+        traceFile = File.createTempFile("transactions", ".trace");
+        PoolProperties poolProperties = TestDataSources.poolProperties(
+                "traced", "hostname=localhost,port="
+                        + TestDataSources.unusedPort()
+                        + ",sampleRate=1.0,prefix=jdbc.trace,traceFile="
+                        + traceFile.getAbsolutePath()
+                        + ",traceSampleRate=1.0");
+        // a single pooled connection, so that each checkout gets the same one
+        poolProperties.setInitialSize(1);
+        poolProperties.setMaxActive(1);
+        poolProperties.setMaxIdle(1);
+        poolProperties.setMinIdle(1);
+        ds = TestDataSources.dataSource(poolProperties);
+    }
+
+    @Test
+    public void eachCheckoutIsWrittenAsATrace() throws SQLException,
+            IOException {
+        Connection conn = ds.getConnection();
+        Statement stmt = conn.createStatement();
+        stmt.execute("create table traced (a integer)");
+        stmt.executeUpdate("insert into traced values (1)");
+        stmt.close();
+        conn.commit();
+        conn.close();
+
+        // second checkout of the same pooled connection, without statement
+        conn = ds.getConnection();
+        conn.close();
+
+        // closing the pool writes the queued traces
+        ds.close();
+
+        String[] lines = decode().split("\n");
+        assertEquals(6, lines.length);
+        assertTrue(lines[0], lines[0].startsWith("trace "));
+        assertTrue(lines[0], lines[0].contains(" statements=4 sampled"));
+        assertTrue(lines[1], lines[1].contains(" createStatement "));
+        assertTrue(lines[2], lines[2].contains(" execute "));
+        assertTrue(lines[3], lines[3].contains(" executeUpdate "));
+        assertTrue(lines[4], lines[4].contains(" commit "));
+        assertTrue(lines[4], lines[4].endsWith(" ok"));
+        assertTrue(lines[5], lines[5].contains(" statements=0 sampled"));
+    }
+
+    @Test
+    public void failedStatementsAreMarkedAsErrors() throws SQLException,
+            IOException {
+        Connection conn = ds.getConnection();
+        Statement stmt = conn.createStatement();
+        try {
+            stmt.execute("select * from no_such_table");
+        } catch (SQLException expected) {
+            // reported in the trace
+        }
+        stmt.close();
+        conn.close();
+        ds.close();
+
+        String[] lines = decode().split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[2], lines[2].contains(" execute "));
+        assertTrue(lines[2], lines[2].endsWith(" error"));
+    }
+
+    @Test
+    public void statementsOfAPreviousCheckoutAreNotTraced()
+            throws SQLException, IOException {
+        Connection conn = ds.getConnection();
+        Statement stale = conn.createStatement();
+        conn.close();
+
+        // the same pooled connection, borrowed again
+        conn = ds.getConnection();
+        stale.execute("create table stale (a integer)");
+        stale.close();
+        conn.close();
+        ds.close();
+
+        String[] lines = decode().split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0], lines[0].contains(" statements=1 sampled"));
+        assertTrue(lines[1], lines[1].contains(" createStatement "));
+        assertTrue(lines[2], lines[2].contains(" statements=0 sampled"));
+    }
+
+    @After
+    public void closeDataSource() {
+        ds.close();
+        traceFile.delete();
+    }
+
+    private String decode() throws IOException {
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        InputStream in = new FileInputStream(traceFile);
+        try {
+            TraceDecoder.decode(in, new PrintStream(decoded, true, "utf-8"));
+        } finally {
+            in.close();
+        }
+        return decoded.toString("utf-8");
+    }
+}